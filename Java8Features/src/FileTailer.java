@@ -0,0 +1,333 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/*
+ * Files.lines() and BufferedReader.lines() only see the content a file has when it is
+ * opened. FileTailer follows a growing file (like tail -F) and exposes the appended lines
+ * as an unbounded, lazily populated Stream.
+ *
+ * 1.The file is read through a FileChannel at an explicitly tracked position, in large
+ * batches into one direct ByteBuffer, so the per-line cost is a scan for '\n' and one
+ * String creation.
+ *
+ * 2.When the end of the file is reached the tailer waits on a WatchService registered for
+ * the parent directory. The wait is bounded by pollMillis, because some platforms
+ * implement WatchService by polling and may report changes late.
+ *
+ * 3.Rotation (the path now points to a different file, detected through the fileKey())
+ * reopens the new file from the start, once a last read of the old file returned nothing.
+ * Truncation (the file became shorter than the read position) restarts from offset 0.
+ *
+ * 4.checkpoint() returns the byte offset just after the last line handed out. Storing it
+ * and passing it to the constructor later resumes without losing or repeating lines.
+ *
+ * Lines are split on the byte 0x0A (and a trailing 0x0D is dropped), so the charset must
+ * encode '\n' and '\r' as those single bytes, as UTF-8, ISO-8859-1 and other ASCII
+ * compatible charsets do. Others, such as UTF-16 or UTF-32, are rejected by the constructor.
+ *
+ * The stream ends when close() is called, from any thread, or when the stream is closed.
+ */
+public class FileTailer implements AutoCloseable {
+
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+	public static final long DEFAULT_POLL_MILLIS = 500;
+
+	private final Path file;
+	private final Charset charset;
+	private final long pollMillis;
+	private final ByteBuffer buffer;
+	private final WatchService watcher;
+
+	// volatile because close() may release it from another thread
+	private volatile FileChannel channel;
+	private Object fileKey;
+	// offset of the next byte to be read from the channel
+	private long readPosition;
+	// offset just after the last line returned by nextLine()
+	private volatile long checkpoint;
+
+	// bytes of the line currently being assembled
+	private byte[] pending = new byte[256];
+	private int pendingLength;
+	// unterminated last line of a rotated file, returned before the new file is read
+	private String rotatedLine;
+	private volatile boolean closed;
+
+	public FileTailer(Path file, long startOffset, Charset charset, int bufferSize, long pollMillis)
+			throws IOException {
+		if (startOffset < 0)
+			throw new IllegalArgumentException("startOffset must not be negative: " + startOffset);
+		if (bufferSize <= 0 || pollMillis <= 0)
+			throw new IllegalArgumentException("bufferSize and pollMillis must be positive");
+		this.file = file.toAbsolutePath();
+		this.charset = checkLineSeparators(Objects.requireNonNull(charset));
+		this.pollMillis = pollMillis;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		this.buffer.flip();
+		this.watcher = FileSystems.getDefault().newWatchService();
+		try {
+			this.file.getParent().register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+			open(startOffset);
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+		// open() starts from 0 if the file is missing or shorter than startOffset
+		this.checkpoint = readPosition;
+	}
+
+	public FileTailer(Path file, long startOffset) throws IOException {
+		this(file, startOffset, StandardCharsets.UTF_8, DEFAULT_BUFFER_SIZE, DEFAULT_POLL_MILLIS);
+	}
+
+	public FileTailer(Path file) throws IOException {
+		this(file, 0);
+	}
+
+	/*
+	 * Unbounded stream of the lines appended to the file. Closing the stream closes the
+	 * tailer. The stream is sequential, parallel() would not help since lines have to be
+	 * read in order anyway.
+	 */
+	public Stream<String> lines() {
+		Spliterator<String> spliterator = new Spliterators.AbstractSpliterator<String>(Long.MAX_VALUE,
+				Spliterator.ORDERED | Spliterator.NONNULL) {
+			@Override
+			public boolean tryAdvance(Consumer<? super String> action) {
+				String line = nextLine();
+				if (line == null)
+					return false;
+				action.accept(line);
+				return true;
+			}
+		};
+		return StreamSupport.stream(spliterator, false).onClose(this::close);
+	}
+
+	// Callback alternative to lines(), blocks the calling thread until close() is called
+	public void tail(Consumer<? super String> action) {
+		try (Stream<String> lines = lines()) {
+			lines.forEach(action);
+		}
+	}
+
+	public long checkpoint() {
+		return checkpoint;
+	}
+
+	public Path file() {
+		return file;
+	}
+
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			// wakes up a thread waiting in nextLine()
+			watcher.close();
+		} catch (IOException e) {
+			// nothing more to release
+		}
+		// a reader blocked in read() gets an AsynchronousCloseException, which nextLine()
+		// turns into the end of the stream
+		closeChannel();
+	}
+
+	private static Charset checkLineSeparators(Charset charset) {
+		if (!charset.canEncode() || !Arrays.equals("\n".getBytes(charset), new byte[] { '\n' })
+				|| !Arrays.equals("\r".getBytes(charset), new byte[] { '\r' }))
+			throw new IllegalArgumentException(
+					charset + " does not encode '\\n' and '\\r' as single ASCII bytes, lines cannot be split");
+		return charset;
+	}
+
+	/*
+	 * Returns the next complete line, waiting for it if necessary, or null once the
+	 * tailer has been closed.
+	 */
+	String nextLine() {
+		try {
+			while (!closed) {
+				if (rotatedLine != null) {
+					String line = rotatedLine;
+					rotatedLine = null;
+					return line;
+				}
+				String line = scanLine();
+				if (line != null)
+					return line;
+				if (fill() > 0)
+					continue;
+				if (checkRotatedOrTruncated())
+					continue;
+				if (!awaitChange())
+					break;
+			}
+			return null;
+		} catch (IOException e) {
+			if (closed)
+				return null;
+			throw new UncheckedIOException(e);
+		} finally {
+			if (closed)
+				closeChannel();
+		}
+	}
+
+	// Takes the next line out of the buffer, or moves a partial line into pending
+	private String scanLine() {
+		int start = buffer.position();
+		int limit = buffer.limit();
+		for (int i = start; i < limit; i++) {
+			if (buffer.get(i) == '\n') {
+				appendPending(i - start);
+				buffer.position(i + 1);
+				return emitPending(1);
+			}
+		}
+		appendPending(limit - start);
+		return null;
+	}
+
+	private void appendPending(int length) {
+		if (pendingLength + length > pending.length)
+			pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+		buffer.get(pending, pendingLength, length);
+		pendingLength += length;
+	}
+
+	// terminatorLength is the number of bytes following the line (1 for '\n', 0 at EOF)
+	private String emitPending(int terminatorLength) {
+		int consumed = pendingLength + terminatorLength;
+		int length = pendingLength;
+		if (length > 0 && pending[length - 1] == '\r')
+			length--;
+		String line = new String(pending, 0, length, charset);
+		pendingLength = 0;
+		checkpoint += consumed;
+		return line;
+	}
+
+	private int fill() throws IOException {
+		FileChannel current = channel;
+		if (current == null)
+			return 0;
+		buffer.clear();
+		int read = current.read(buffer, readPosition);
+		buffer.flip();
+		if (read > 0)
+			readPosition += read;
+		return Math.max(read, 0);
+	}
+
+	/*
+	 * Called at the end of the current file. Returns true if reading should continue
+	 * from a new position or a new file.
+	 */
+	private boolean checkRotatedOrTruncated() throws IOException {
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			// rotated away and not yet recreated, wait for ENTRY_CREATE
+			return false;
+		}
+		Object key = attributes.fileKey();
+		if (channel == null || (key != null && !key.equals(fileKey))) {
+			// the writer may have appended to the old file after the last fill() and before
+			// renaming it, so read it once more and only switch once nothing is left
+			if (fill() > 0)
+				return true;
+			// a last line without '\n' is still a line
+			if (pendingLength > 0)
+				rotatedLine = emitPending(0);
+			open(0);
+			checkpoint = 0;
+			return true;
+		}
+		if (attributes.size() < readPosition) {
+			pendingLength = 0;
+			readPosition = 0;
+			checkpoint = 0;
+			return true;
+		}
+		return false;
+	}
+
+	private boolean awaitChange() {
+		try {
+			WatchKey key = watcher.poll(pollMillis, TimeUnit.MILLISECONDS);
+			if (key != null) {
+				// every event leads to the same check, so the events themselves are not needed
+				key.pollEvents();
+				key.reset();
+			}
+			return true;
+		} catch (ClosedWatchServiceException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			return false;
+		}
+	}
+
+	private void open(long position) throws IOException {
+		closeChannel();
+		buffer.clear();
+		buffer.flip();
+		try {
+			FileChannel opened = FileChannel.open(file, StandardOpenOption.READ);
+			channel = opened;
+			// close() may have run while the file was being opened
+			if (closed) {
+				closeChannel();
+				return;
+			}
+			fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+			readPosition = position > opened.size() ? 0 : position;
+		} catch (NoSuchFileException e) {
+			channel = null;
+			fileKey = null;
+			readPosition = 0;
+		}
+	}
+
+	private void closeChannel() {
+		FileChannel current = channel;
+		if (current == null)
+			return;
+		channel = null;
+		try {
+			current.close();
+		} catch (IOException e) {
+			// read only channel, nothing is lost
+		}
+	}
+}
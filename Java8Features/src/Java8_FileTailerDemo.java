@@ -0,0 +1,70 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/*
+ * FileTailer follows a growing log file and returns the appended lines as a Stream, while
+ * Files.lines() stops at the end of the file as it was when opened.
+ *
+ * In this example a writer thread appends lines, rotates the file (rename + create, like
+ * logrotate does) and appends some more. The tailer sees the lines of both files in order,
+ * then a second tailer resumes from the checkpoint of the first one.
+ */
+public class Java8_FileTailerDemo {
+
+	public static void main(String[] args) throws Exception {
+		Path dir = Files.createTempDirectory("tail-demo");
+		Path log = dir.resolve("app.log");
+		Files.createFile(log);
+
+		long checkpoint;
+		CompletableFuture<Void> writer;
+		try (FileTailer tailer = new FileTailer(log)) {
+			writer = CompletableFuture.runAsync(() -> {
+				append(log, 0, 5);
+				try {
+					// rotation, the last line of the old file has no line terminator
+					Files.write(log, "line-5 unterminated".getBytes(StandardCharsets.UTF_8),
+							StandardOpenOption.APPEND);
+					Files.move(log, dir.resolve("app.log.1"), StandardCopyOption.ATOMIC_MOVE);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				append(log, 6, 10);
+			});
+
+			// the stream is unbounded, limit() ends it after the expected number of lines
+			List<String> lines = tailer.lines().limit(10).collect(Collectors.toList());
+			System.out.println(lines);
+			// prints [line-0, line-1, line-2, line-3, line-4, line-5 unterminated, line-6, line-7, line-8, line-9]
+			checkpoint = tailer.checkpoint();
+			System.out.println("checkpoint after 10 lines=" + checkpoint);
+		}
+		writer.join();
+
+		// resume from the stored offset, only lines appended after it are returned
+		append(log, 10, 13);
+		try (FileTailer tailer = new FileTailer(log, checkpoint)) {
+			tailer.lines().limit(3).forEach(line -> System.out.println("resumed " + line));
+			// prints resumed line-10, resumed line-11, resumed line-12
+		}
+	}
+
+	private static void append(Path log, int from, int to) {
+		try (Writer out = Files.newBufferedWriter(log, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND)) {
+			for (int i = from; i < to; i++)
+				out.write("line-" + i + "\n");
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
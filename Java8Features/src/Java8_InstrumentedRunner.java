@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/*
+ * Runs the main() of the demo classes one after the other in the same JVM and measures
+ * them, instead of the ad-hoc System.currentTimeMillis() calls inside the demos.
+ *
+ * Every workload is run a number of warmup times (not measured) and then measured a
+ * number of times. Output printed by the workloads is discarded while they run; the
+ * discarding PrintStream is created once and installed around all runs of a workload,
+ * so the harness itself allocates nothing between the start and the end of a sample.
+ *
+ * Most demos run in about a millisecond, well below the resolution of the process CPU
+ * time (one clock tick, 10 ms on Linux) and too short for a single run to be stable. So
+ * every measured sample repeats the workload until at least minSampleMillis (system
+ * property, default 1000) have passed, and the values below are divided by the number of
+ * runs of the sample (runs_per_sample) to report them per run:
+ *
+ * wall_us         elapsed time, System.nanoTime()
+ * cpu_us          CPU time of all threads alive at the end of the run (ThreadMXBean),
+ *                 this includes the ForkJoinPool workers used by parallel streams
+ * process_cpu_us  CPU time of the whole process, including GC and JIT threads
+ * alloc_bytes     bytes allocated by all threads (com.sun.management.ThreadMXBean)
+ * gc_count        number of collections of all collectors (GarbageCollectorMXBean)
+ * gc_ms           accumulated collection time of all collectors
+ * peak_heap_bytes sum of the peak usage of the heap memory pools during one single run
+ *                 (the calibration run, started after System.gc() with the peaks
+ *                 reset). A peak over a whole sample would only show how full eden
+ *                 got before a young collection, not the footprint of the workload.
+ *
+ * The report is tab separated, one line per workload with the median of the measured
+ * samples, preceded by '#' lines describing the JVM, so two reports can be compared with
+ * diff or loaded into a spreadsheet.
+ *
+ * Usage: Java8_InstrumentedRunner [warmup] [iterations] [report file] [workload names...]
+ * Defaults are 1 warmup run, 3 measured samples, instrumented-report.tsv and all workloads.
+ * Java8_Strams builds a list of 20 million Integers, so run with -Xmx2g or more.
+ */
+public class Java8_InstrumentedRunner {
+
+	private static final String[] NO_ARGS = new String[0];
+
+	private static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	});
+
+	private static final String[] COLUMNS = { "wall_us", "cpu_us", "process_cpu_us", "alloc_bytes", "gc_count",
+			"gc_ms", "peak_heap_bytes" };
+
+	private static final int ALLOC_COLUMN = 3;
+	// peak_heap_bytes is measured over the calibration run, not by Metrics
+	private static final int PEAK_COLUMN = 6;
+
+	private static final long MIN_SAMPLE_NANOS = Long.getLong("minSampleMillis", 1000) * 1000000;
+
+	public static void main(String[] args) throws IOException {
+		Map<String, Consumer<String[]>> workloads = new LinkedHashMap<>();
+		workloads.put("Java8_Strams", Java8_Strams::main);
+		workloads.put("Java8_StreamsDemo", Java8_StreamsDemo::main);
+		workloads.put("Java8_ForEach", Java8_ForEach::main);
+		workloads.put("Java8_DateTimeApi", Java8_DateTimeApi::main);
+		workloads.put("Java8_DateTimeApiUtilityMethods", Java8_DateTimeApiUtilityMethods::main);
+
+		int warmup = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		Path report = Paths.get(args.length > 2 ? args[2] : "instrumented-report.tsv");
+		List<String> selected = args.length > 3 ? Arrays.asList(args).subList(3, args.length)
+				: workloads.keySet().stream().collect(Collectors.toList());
+		if (iterations < 1)
+			throw new IllegalArgumentException("iterations must be at least 1: " + iterations);
+
+		Metrics metrics = new Metrics();
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(report, StandardCharsets.UTF_8))) {
+			out.println("# java.version=" + System.getProperty("java.version"));
+			out.println("# java.vm.name=" + System.getProperty("java.vm.name"));
+			out.println("# processors=" + Runtime.getRuntime().availableProcessors());
+			out.println("# max_heap_bytes=" + Runtime.getRuntime().maxMemory());
+			out.println("# collectors=" + ManagementFactory.getGarbageCollectorMXBeans().stream()
+					.map(GarbageCollectorMXBean::getName).collect(Collectors.joining(",")));
+			out.println("# warmup=" + warmup + " iterations=" + iterations + " min_sample_ms="
+					+ MIN_SAMPLE_NANOS / 1000000 + " (values are per run, medians of the samples)");
+			out.println("workload\truns_per_sample\t" + String.join("\t", COLUMNS));
+
+			for (String name : selected) {
+				Consumer<String[]> workload = workloads.get(name);
+				if (workload == null)
+					throw new IllegalArgumentException("unknown workload " + name + ", known: " + workloads.keySet());
+
+				PrintStream stdout = System.out;
+				System.setOut(DISCARD);
+				int runsPerSample;
+				long peakHeap;
+				double[][] samples = new double[iterations][];
+				try {
+					for (int i = 0; i < warmup; i++)
+						workload.accept(NO_ARGS);
+
+					// one timed run decides how many runs make a sample of at least MIN_SAMPLE_NANOS,
+					// it also gives the peak heap of a single run
+					System.gc();
+					metrics.resetPeakHeap();
+					long calibrationStart = System.nanoTime();
+					workload.accept(NO_ARGS);
+					long runNanos = Math.max(System.nanoTime() - calibrationStart, 1);
+					peakHeap = metrics.peakHeap();
+					runsPerSample = (int) Math.min(Integer.MAX_VALUE,
+							Math.max(1, (MIN_SAMPLE_NANOS + runNanos - 1) / runNanos));
+
+					for (int i = 0; i < iterations; i++) {
+						// start every sample from a collected heap so samples do not pay for each
+						// other's garbage
+						System.gc();
+						metrics.start();
+						for (int run = 0; run < runsPerSample; run++)
+							workload.accept(NO_ARGS);
+						long[] totals = metrics.stop();
+						samples[i] = new double[totals.length];
+						for (int column = 0; column < totals.length; column++)
+							samples[i][column] = (double) totals[column] / runsPerSample;
+					}
+				} finally {
+					System.setOut(stdout);
+				}
+
+				StringBuilder line = new StringBuilder(name).append('\t').append(runsPerSample);
+				for (int column = 0; column < COLUMNS.length; column++) {
+					double value = column == PEAK_COLUMN ? peakHeap : median(samples, column);
+					line.append('\t').append(format(column, value));
+				}
+				out.println(line);
+				System.out.println(line);
+			}
+		}
+		System.out.println("report written to " + report.toAbsolutePath());
+	}
+
+	private static double median(double[][] samples, int column) {
+		double[] values = new double[samples.length];
+		for (int i = 0; i < samples.length; i++)
+			values[i] = samples[i][column];
+		Arrays.sort(values);
+		return values[values.length / 2];
+	}
+
+	// byte counts as whole numbers, times and collection counts with three decimals since
+	// a run of a small demo takes a few microseconds and causes a fraction of a collection
+	private static String format(int column, double value) {
+		if (column == ALLOC_COLUMN || column == PEAK_COLUMN)
+			return Long.toString(Math.round(value));
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	/*
+	 * Snapshot of the JVM counters at the start of a sample. stop() returns the differences
+	 * in the order of COLUMNS, without peak_heap_bytes.
+	 */
+	private static final class Metrics {
+		private final com.sun.management.ThreadMXBean threads;
+		private final com.sun.management.OperatingSystemMXBean os;
+		private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+		private final List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+				.filter(pool -> pool.getType() == MemoryType.HEAP).collect(Collectors.toList());
+
+		private final Map<Long, long[]> threadStart = new LinkedHashMap<>();
+		private long wallStart;
+		private long processCpuStart;
+		private long gcCountStart;
+		private long gcTimeStart;
+
+		Metrics() {
+			threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+			if (threads.isThreadCpuTimeSupported())
+				threads.setThreadCpuTimeEnabled(true);
+			if (threads.isThreadAllocatedMemorySupported())
+				threads.setThreadAllocatedMemoryEnabled(true);
+		}
+
+		void start() {
+			threadStart.clear();
+			for (long id : threads.getAllThreadIds())
+				threadStart.put(id, new long[] { threads.getThreadCpuTime(id), threads.getThreadAllocatedBytes(id) });
+			gcCountStart = gcCount();
+			gcTimeStart = gcTime();
+			processCpuStart = os.getProcessCpuTime();
+			wallStart = System.nanoTime();
+		}
+
+		long[] stop() {
+			long wall = System.nanoTime() - wallStart;
+			long processCpu = os.getProcessCpuTime() - processCpuStart;
+
+			// threads that ended during the run are not counted, the demos only use
+			// the main thread and the common ForkJoinPool whose workers outlive a run
+			long cpu = 0;
+			long allocated = 0;
+			for (long id : threads.getAllThreadIds()) {
+				long[] start = threadStart.getOrDefault(id, new long[2]);
+				long threadCpu = threads.getThreadCpuTime(id);
+				long threadAllocated = threads.getThreadAllocatedBytes(id);
+				// -1 means the thread has just died
+				if (threadCpu >= 0)
+					cpu += threadCpu - Math.max(start[0], 0);
+				if (threadAllocated >= 0)
+					allocated += threadAllocated - Math.max(start[1], 0);
+			}
+
+			return new long[] { wall / 1000, cpu / 1000, processCpu / 1000, allocated,
+					gcCount() - gcCountStart, gcTime() - gcTimeStart };
+		}
+
+		void resetPeakHeap() {
+			heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+		}
+
+		long peakHeap() {
+			long peak = 0;
+			for (MemoryPoolMXBean pool : heapPools)
+				peak += pool.getPeakUsage().getUsed();
+			return peak;
+		}
+
+		private long gcCount() {
+			long count = 0;
+			for (GarbageCollectorMXBean gc : collectors)
+				count += Math.max(gc.getCollectionCount(), 0);
+			return count;
+		}
+
+		private long gcTime() {
+			long time = 0;
+			for (GarbageCollectorMXBean gc : collectors)
+				time += Math.max(gc.getCollectionTime(), 0);
+			return time;
+		}
+	}
+}
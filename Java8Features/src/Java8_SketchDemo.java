@@ -0,0 +1,108 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/*
+ * Java8_StreamsDemo counts with count() and collects into a Map or a List. Exact distinct
+ * counts, frequency tables and quantiles need memory growing with the number of distinct
+ * values (or with the number of values for quantiles). SketchCollectors answers the same
+ * questions approximately with a fixed amount of memory.
+ *
+ * The demo builds a parallel stream of skewed events (a few hot keys, a long tail of rare
+ * ones) and a latency per event, then compares for several sketch sizes:
+ * 1.distinctCount() against Collectors.toSet().size()
+ * 2.frequencies() against Collectors.groupingByConcurrent(key, Collectors.counting())
+ * 3.quantiles() against the quantiles of the sorted latencies
+ *
+ * Arguments: [events, default 10000000] [key space, default 2000000]
+ */
+public class Java8_SketchDemo {
+
+	public static void main(String[] args) {
+		long events = args.length > 0 ? Long.parseLong(args[0]) : 10000000L;
+		long keySpace = args.length > 1 ? Long.parseLong(args[1]) : 2000000L;
+
+		// u^3 makes the small keys much more frequent than the large ones
+		Function<Long, Long> key = i -> (long) (keySpace * Math.pow(uniform(i), 3));
+		// latencies between 100 and about 40000 microseconds with a long tail
+		Function<Long, Double> latency = i -> 100 * Math.exp(6 * Math.pow(uniform(i + events), 2));
+
+		System.out.println(events + " events");
+
+		// distinct count
+		long start = System.nanoTime();
+		long exactDistinct = LongStream.range(0, events).parallel().boxed().map(key).collect(Collectors.toSet())
+				.size();
+		System.out.printf("distinct exact=%d (HashSet of %d entries) time=%d ms%n", exactDistinct, exactDistinct,
+				(System.nanoTime() - start) / 1000000);
+		for (int precision : new int[] { 10, 12, 14, 16 }) {
+			start = System.nanoTime();
+			SketchCollectors.HyperLogLog hll = LongStream.range(0, events).parallel().boxed().map(key)
+					.collect(SketchCollectors.distinctCount(precision));
+			long estimate = hll.estimate();
+			System.out.printf("  HyperLogLog p=%-2d %6d bytes estimate=%d error=%.2f%% time=%d ms%n", precision,
+					hll.sizeInBytes(), estimate, 100.0 * Math.abs(estimate - exactDistinct) / exactDistinct,
+					(System.nanoTime() - start) / 1000000);
+		}
+
+		// sketches of two halves of the events, e.g. built on two hosts, merge into the
+		// same registers as a sketch of all events
+		SketchCollectors.HyperLogLog firstHalf = LongStream.range(0, events / 2).boxed().map(key)
+				.collect(SketchCollectors.distinctCount(14));
+		SketchCollectors.HyperLogLog secondHalf = LongStream.range(events / 2, events).boxed().map(key)
+				.collect(SketchCollectors.distinctCount(14));
+		System.out.printf("  HyperLogLog p=14 merged halves estimate=%d%n", firstHalf.merge(secondHalf).estimate());
+
+		// frequencies
+		start = System.nanoTime();
+		Map<Long, Long> exactCounts = LongStream.range(0, events).parallel().boxed().map(key)
+				.collect(Collectors.groupingByConcurrent(k -> k, Collectors.counting()));
+		System.out.printf("frequencies exact: HashMap of %d entries time=%d ms%n", exactCounts.size(),
+				(System.nanoTime() - start) / 1000000);
+		for (double epsilon : new double[] { 1e-3, 1e-4, 1e-5 }) {
+			start = System.nanoTime();
+			SketchCollectors.CountMinSketch cms = LongStream.range(0, events).parallel().boxed().map(key)
+					.collect(SketchCollectors.frequencies(epsilon, 0.01));
+			long time = (System.nanoTime() - start) / 1000000;
+			// average over all keys, and the largest error of the 10 most frequent keys
+			double averageError = exactCounts.entrySet().stream()
+					.mapToLong(e -> cms.estimate(e.getKey()) - e.getValue()).average().orElse(0);
+			double hotError = exactCounts.entrySet().stream()
+					.sorted(Map.Entry.<Long, Long>comparingByValue().reversed()).limit(10)
+					.mapToDouble(e -> (double) (cms.estimate(e.getKey()) - e.getValue()) / e.getValue()).max()
+					.orElse(0);
+			System.out.printf(
+					"  CountMin eps=%.0e %8d bytes average overestimate=%.1f (bound %.0f) top-10 error=%.3f%% time=%d ms%n",
+					epsilon, cms.sizeInBytes(), averageError, epsilon * events, 100 * hotError, time);
+		}
+
+		// quantiles
+		double[] qs = { 0.5, 0.9, 0.99, 0.999 };
+		start = System.nanoTime();
+		double[] sorted = LongStream.range(0, events).parallel().mapToDouble(i -> latency.apply(i)).sorted()
+				.toArray();
+		double[] exact = new double[qs.length];
+		for (int i = 0; i < qs.length; i++)
+			exact[i] = sorted[(int) (qs[i] * (sorted.length - 1))];
+		System.out.printf("quantiles exact: sorted double[%d] (%d bytes) time=%d ms %s%n", sorted.length,
+				8L * sorted.length, (System.nanoTime() - start) / 1000000, Arrays.toString(exact));
+		for (double accuracy : new double[] { 0.05, 0.01, 0.001 }) {
+			start = System.nanoTime();
+			SketchCollectors.QuantileSketch sketch = LongStream.range(0, events).parallel().boxed()
+					.collect(SketchCollectors.quantiles(accuracy, latency::apply));
+			long time = (System.nanoTime() - start) / 1000000;
+			double maxError = 0;
+			for (int i = 0; i < qs.length; i++)
+				maxError = Math.max(maxError, Math.abs(sketch.quantile(qs[i]) - exact[i]) / exact[i]);
+			System.out.printf("  Quantiles accuracy=%.3f %7d bytes max relative error=%.3f%% time=%d ms%n",
+					accuracy, sketch.sizeInBytes(), 100 * maxError, time);
+		}
+	}
+
+	// pseudo random number in [0, 1) computed from the index, independent of the splitting
+	private static double uniform(long i) {
+		return (SketchCollectors.mix64(i + 0x9E3779B97F4A7C15L) >>> 11) * 0x1.0p-53;
+	}
+}
@@ -0,0 +1,98 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/*
+ * Java8_StreamsDemo uses sorted(Comparator.reverseOrder()).collect(Collectors.toList()) and
+ * then only looks at the first few elements. sorted() has to buffer and sort the whole
+ * stream even when it is followed by limit(k), TopKCollectors keeps only k elements per
+ * worker in a bounded heap.
+ *
+ * The benchmark compares both on a parallel stream of random numbers:
+ * 1.IntStream.sorted().limit(k) against TopKCollectors.smallest(IntStream, k)
+ * 2.Stream<Integer>.sorted(reverseOrder()).limit(k) against collect(TopKCollectors.topK(k, reverseOrder()))
+ * and its stable variant stableTopK()
+ *
+ * Arguments: [int elements, default 100000000] [boxed elements, default 10000000] [k, default 10]
+ * Sorting 100 million ints needs an int[] of 400 MB, run with -Xmx2g or more. The boxed
+ * default is smaller because sorted() on 100 million Integers needs several GB of heap.
+ */
+public class Java8_TopKDemo {
+
+	public static void main(String[] args) {
+		long intCount = args.length > 0 ? Long.parseLong(args[0]) : 100000000L;
+		long boxedCount = args.length > 1 ? Long.parseLong(args[1]) : 10000000L;
+		int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		// pseudo random values computed from the index, so every call returns the same
+		// elements however the parallel stream is split
+		Supplier<IntStream> ints = () -> LongStream.range(0, intCount).parallel().mapToInt(Java8_TopKDemo::mix);
+		Supplier<Stream<Integer>> boxed = () -> LongStream.range(0, boxedCount).parallel().mapToObj(i -> mix(i + 7));
+
+		// a small example like the one in Java8_StreamsDemo
+		List<String> names = Stream.of("aBc", "d", "ef", "123456")
+				.collect(TopKCollectors.topK(2, Comparator.reverseOrder()));
+		System.out.println(names); // [ef, d]
+
+		System.out.println("primitive, " + intCount + " elements, k=" + k);
+		int[] sorted = measure("  sorted().limit(k)      ", () -> ints.get().sorted().limit(k).toArray());
+		int[] heap = measure("  TopKCollectors.smallest", () -> TopKCollectors.smallest(ints.get(), k));
+		check(Arrays.equals(sorted, heap));
+
+		System.out.println("boxed, " + boxedCount + " elements, k=" + k);
+		List<Integer> sortedBoxed = measure("  sorted(reverseOrder()).limit(k)",
+				() -> boxed.get().sorted(Comparator.reverseOrder()).limit(k).collect(Collectors.toList()));
+		List<Integer> heapBoxed = measure("  topK(k, reverseOrder())        ",
+				() -> boxed.get().collect(TopKCollectors.topK(k, Comparator.reverseOrder())));
+		check(sortedBoxed.equals(heapBoxed));
+		List<Integer> stableBoxed = measure("  stableTopK(k, reverseOrder())  ",
+				() -> boxed.get().collect(TopKCollectors.stableTopK(k, Comparator.reverseOrder())));
+		check(sortedBoxed.equals(stableBoxed));
+	}
+
+	// finalizer of SplitMix64, spreads consecutive indexes over the whole int range
+	private static int mix(long i) {
+		long z = i * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return (int) (z ^ (z >>> 31));
+	}
+
+	private static void check(boolean same) {
+		if (!same)
+			throw new IllegalStateException("top-k result differs from sorted().limit(k)");
+	}
+
+	// Runs the task once to warm up, then once measured, and prints time and the bytes
+	// allocated by all threads (the parallel stream runs in the common ForkJoinPool)
+	private static <R> R measure(String label, Supplier<R> task) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		task.get();
+		System.gc();
+
+		long startBytes = allocatedBytes(threads);
+		long startTime = System.nanoTime();
+		R result = task.get();
+		long stopTime = System.nanoTime();
+		long bytes = allocatedBytes(threads) - startBytes;
+
+		System.out.printf("%s time=%d ms allocated=%d MB%n", label, (stopTime - startTime) / 1000000,
+				bytes / (1024 * 1024));
+		return result;
+	}
+
+	private static long allocatedBytes(com.sun.management.ThreadMXBean threads) {
+		long[] ids = threads.getAllThreadIds();
+		long total = 0;
+		for (long bytes : threads.getThreadAllocatedBytes(ids))
+			total += Math.max(bytes, 0);
+		return total;
+	}
+}
@@ -7,6 +7,9 @@
  * Files.find() that returns a Stream that is lazily populated with Path by searching for files in a file tree rooted at a given starting file.
  * 
  * BufferedReader.lines() that return a Stream, the elements of which are lines read from this BufferedReader.
+ * 
+ * Files.lines() and BufferedReader.lines() only see the content present when the file is opened,
+ * FileTailer (see Java8_FileTailerDemo) returns the lines appended to a growing file as an unbounded Stream.
  * */
 public class Java8_ioImprovement {
 
@@ -0,0 +1,163 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/*
+ * A small object pool for scratch objects such as StringBuilder, byte[] buffers or
+ * DateTimeFormatter-like helpers that are otherwise allocated once per record.
+ *
+ * Three layers are used:
+ *
+ * 1.A per-thread slot created with ThreadLocal.withInitial(Supplier). Borrowing and
+ * returning from the thread's own slot needs no synchronization at all.
+ *
+ * 2.A shared overflow pool split into stripes of AtomicReferenceArray. A thread picks
+ * its stripe from its id, so short lived threads (or many threads in a ForkJoinPool)
+ * still find objects to reuse without one ThreadLocal holding a large pool per thread.
+ * Slots are claimed with compareAndSet, no locks are taken.
+ *
+ * 3.Size caps and hooks. Every returned object is passed to the reset hook, then to the
+ * retain predicate; objects that grew too large (e.g. a StringBuilder with a huge
+ * capacity) are dropped instead of being kept alive by the pool. Both layers have a
+ * fixed capacity, everything beyond that is left to the garbage collector.
+ *
+ * Typical usage is borrow() / release() in a try-finally block, or with(Function).
+ */
+public class ObjectPool<T> {
+
+	private static final int DEFAULT_LOCAL_CAPACITY = 4;
+
+	private final Supplier<? extends T> factory;
+	private final Consumer<? super T> reset;
+	private final Predicate<? super T> retain;
+	private final int localCapacity;
+	private final ThreadLocal<LocalSlot<T>> local;
+	private final AtomicReferenceArray<T>[] stripes;
+	private final int stripeMask;
+
+	public ObjectPool(Supplier<? extends T> factory, Consumer<? super T> reset, Predicate<? super T> retain,
+			int localCapacity, int sharedCapacity) {
+		if (factory == null || reset == null || retain == null)
+			throw new NullPointerException();
+		if (localCapacity < 0 || sharedCapacity < 0)
+			throw new IllegalArgumentException("capacity must not be negative");
+		this.factory = factory;
+		this.reset = reset;
+		this.retain = retain;
+		this.localCapacity = localCapacity;
+		// with localCapacity 0 no ThreadLocal is created at all, which suits many short
+		// lived threads that would otherwise each pin their own slot
+		this.local = localCapacity == 0 ? null : ThreadLocal.withInitial(() -> new LocalSlot<>(this.localCapacity));
+
+		// one stripe per available processor (rounded to a power of two) so that
+		// threads rarely compete for the same slots
+		int stripeCount = 1;
+		while (stripeCount < Runtime.getRuntime().availableProcessors())
+			stripeCount <<= 1;
+		int perStripe = sharedCapacity == 0 ? 0 : Math.max(1, (sharedCapacity + stripeCount - 1) / stripeCount);
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		AtomicReferenceArray<T>[] s = new AtomicReferenceArray[stripeCount];
+		for (int i = 0; i < stripeCount; i++)
+			s[i] = new AtomicReferenceArray<>(perStripe);
+		this.stripes = s;
+		this.stripeMask = stripeCount - 1;
+	}
+
+	public ObjectPool(Supplier<? extends T> factory, Consumer<? super T> reset, int sharedCapacity) {
+		this(factory, reset, t -> true, DEFAULT_LOCAL_CAPACITY, sharedCapacity);
+	}
+
+	// Pool of StringBuilders, builders that grew beyond maxRetainedCapacity are dropped
+	public static ObjectPool<StringBuilder> ofStringBuilders(int initialCapacity, int maxRetainedCapacity) {
+		return new ObjectPool<>(() -> new StringBuilder(initialCapacity), sb -> sb.setLength(0),
+				sb -> sb.capacity() <= maxRetainedCapacity, DEFAULT_LOCAL_CAPACITY,
+				Runtime.getRuntime().availableProcessors() * DEFAULT_LOCAL_CAPACITY);
+	}
+
+	// Pool of fixed size byte buffers, contents are not cleared on release
+	public static ObjectPool<byte[]> ofByteArrays(int size) {
+		return new ObjectPool<>(() -> new byte[size], b -> {
+		}, b -> b.length == size, DEFAULT_LOCAL_CAPACITY,
+				Runtime.getRuntime().availableProcessors() * DEFAULT_LOCAL_CAPACITY);
+	}
+
+	public T borrow() {
+		if (local != null) {
+			T t = local.get().poll();
+			if (t != null)
+				return t;
+		}
+		AtomicReferenceArray<T> stripe = stripe();
+		for (int i = 0; i < stripe.length(); i++) {
+			T shared = stripe.get(i);
+			if (shared != null && stripe.compareAndSet(i, shared, null))
+				return shared;
+		}
+		return factory.get();
+	}
+
+	public void release(T t) {
+		if (t == null)
+			return;
+		reset.accept(t);
+		if (!retain.test(t))
+			return;
+		if (local != null && local.get().offer(t))
+			return;
+		AtomicReferenceArray<T> stripe = stripe();
+		for (int i = 0; i < stripe.length(); i++) {
+			if (stripe.get(i) == null && stripe.compareAndSet(i, null, t))
+				return;
+		}
+		// both layers are full, let the object be collected
+	}
+
+	public <R> R with(Function<? super T, ? extends R> action) {
+		T t = borrow();
+		try {
+			return action.apply(t);
+		} finally {
+			release(t);
+		}
+	}
+
+	// Drops the calling thread's slot, useful before a pooled thread is handed back
+	public void clearLocal() {
+		if (local != null)
+			local.remove();
+	}
+
+	private AtomicReferenceArray<T> stripe() {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return stripes[(h ^ (h >>> 16)) & stripeMask];
+	}
+
+	// Small LIFO stack owned by a single thread
+	private static final class LocalSlot<T> {
+		private final Object[] items;
+		private int size;
+
+		LocalSlot(int capacity) {
+			this.items = new Object[capacity];
+		}
+
+		@SuppressWarnings("unchecked")
+		T poll() {
+			if (size == 0)
+				return null;
+			T t = (T) items[--size];
+			items[size] = null;
+			return t;
+		}
+
+		boolean offer(T t) {
+			if (size == items.length)
+				return false;
+			items[size++] = t;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,341 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collector;
+
+/*
+ * Approximate counterparts of count(), Collectors.toSet().size() and
+ * Collectors.groupingBy(x, counting()) that use a fixed amount of memory whatever the
+ * number of distinct elements, and that can be merged.
+ *
+ * HyperLogLog    number of distinct elements, relative error about 1.04 / sqrt(2^precision)
+ * CountMinSketch frequency of an element, never underestimated and overestimated by at
+ *               most epsilon * total count with probability 1 - delta
+ * QuantileSketch quantiles of non negative values (e.g. latencies), every returned
+ *               quantile is within relativeAccuracy of the exact one
+ *
+ * All sketches keep their state in atomic arrays, so the collectors are CONCURRENT and
+ * UNORDERED: on a parallel stream all workers add into one shared sketch, no per worker
+ * copy is created and nothing has to be merged. merge() is still available to combine
+ * sketches built separately (other partitions, other files, other hosts) as long as
+ * they were created with the same parameters.
+ *
+ * Elements are hashed from hashCode(), so at most 2^32 different hashes exist; that is
+ * far above the cardinalities these sketches are meant for.
+ */
+public final class SketchCollectors {
+
+	private static final Collector.Characteristics[] CHARACTERISTICS = { Collector.Characteristics.CONCURRENT,
+			Collector.Characteristics.UNORDERED, Collector.Characteristics.IDENTITY_FINISH };
+
+	private SketchCollectors() {
+	}
+
+	// precision 4..18, the sketch uses 2^precision bytes
+	public static <T> Collector<T, ?, HyperLogLog> distinctCount(int precision) {
+		return Collector.of(() -> new HyperLogLog(precision), HyperLogLog::add, HyperLogLog::merge, CHARACTERISTICS);
+	}
+
+	public static <T> Collector<T, ?, CountMinSketch> frequencies(double epsilon, double delta) {
+		return Collector.of(() -> new CountMinSketch(epsilon, delta), CountMinSketch::add, CountMinSketch::merge,
+				CHARACTERISTICS);
+	}
+
+	public static <T> Collector<T, ?, QuantileSketch> quantiles(double relativeAccuracy,
+			ToDoubleFunction<? super T> value) {
+		return Collector.of(() -> new QuantileSketch(relativeAccuracy),
+				(sketch, t) -> sketch.add(value.applyAsDouble(t)), QuantileSketch::merge, CHARACTERISTICS);
+	}
+
+	// fmix64 finalizer of MurmurHash3, turns a hashCode() into 64 well mixed bits
+	static long mix64(long z) {
+		z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+		z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return z ^ (z >>> 33);
+	}
+
+	private static long hash(Object o) {
+		return mix64(o == null ? 0 : o.hashCode());
+	}
+
+	/*
+	 * Registers are bytes packed four per int of an AtomicIntegerArray. A register only
+	 * ever grows, so it is updated with a compareAndSet loop that gives up as soon as the
+	 * stored value is already large enough.
+	 */
+	public static final class HyperLogLog {
+		private final int precision;
+		private final AtomicIntegerArray registers;
+
+		public HyperLogLog(int precision) {
+			if (precision < 4 || precision > 18)
+				throw new IllegalArgumentException("precision must be between 4 and 18: " + precision);
+			this.precision = precision;
+			this.registers = new AtomicIntegerArray((1 << precision) / 4);
+		}
+
+		public void add(Object o) {
+			addHash(hash(o));
+		}
+
+		public void addHash(long hash) {
+			int index = (int) (hash >>> (64 - precision));
+			// the marker bit limits rho to 64 - precision + 1
+			int rho = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+			update(index, rho);
+		}
+
+		public HyperLogLog merge(HyperLogLog other) {
+			if (other.precision != precision)
+				throw new IllegalArgumentException("cannot merge precision " + other.precision + " into " + precision);
+			for (int i = 0; i < 1 << precision; i++)
+				update(i, other.register(i));
+			return this;
+		}
+
+		/*
+		 * Improved raw estimator of O. Ertl ("New cardinality estimation algorithms for
+		 * HyperLogLog sketches", 2017). It works on the histogram of the register values
+		 * and corrects for empty and saturated registers itself, so it needs neither the
+		 * switch to linear counting of the original HyperLogLog (whose raw estimate is
+		 * biased upwards just above that switch, around 2.5 * 2^precision elements) nor
+		 * the empirical bias tables of HyperLogLog++.
+		 */
+		public long estimate() {
+			int m = 1 << precision;
+			int q = 64 - precision;
+			int[] histogram = new int[q + 2];
+			for (int i = 0; i < m; i++)
+				histogram[register(i)]++;
+			if (histogram[0] == m)
+				return 0;
+			double z = m * tau(1 - (double) histogram[q + 1] / m);
+			for (int k = q; k >= 1; k--)
+				z = 0.5 * (z + histogram[k]);
+			z += m * sigma((double) histogram[0] / m);
+			return Math.round(m / (2 * Math.log(2)) * m / z);
+		}
+
+		private static double sigma(double x) {
+			double y = 1;
+			double z = x;
+			double previous;
+			do {
+				x *= x;
+				previous = z;
+				z += x * y;
+				y += y;
+			} while (z != previous);
+			return z;
+		}
+
+		private static double tau(double x) {
+			if (x == 0 || x == 1)
+				return 0;
+			double y = 1;
+			double z = 1 - x;
+			double previous;
+			do {
+				x = Math.sqrt(x);
+				previous = z;
+				y *= 0.5;
+				z -= (1 - x) * (1 - x) * y;
+			} while (z != previous);
+			return z / 3;
+		}
+
+		public int sizeInBytes() {
+			return 1 << precision;
+		}
+
+		private int register(int index) {
+			return (registers.get(index >>> 2) >>> ((index & 3) << 3)) & 0xFF;
+		}
+
+		private void update(int index, int rho) {
+			int slot = index >>> 2;
+			int shift = (index & 3) << 3;
+			while (true) {
+				int word = registers.get(slot);
+				if (((word >>> shift) & 0xFF) >= rho)
+					return;
+				int updated = (word & ~(0xFF << shift)) | (rho << shift);
+				if (registers.compareAndSet(slot, word, updated))
+					return;
+			}
+		}
+	}
+
+	/*
+	 * depth rows of width counters, every element increments one counter per row. The
+	 * row indexes are derived from one 64 bit hash as h1 + row * h2 (Kirsch-Mitzenmacher),
+	 * so only one hash is computed per element.
+	 */
+	public static final class CountMinSketch {
+		private final int width;
+		private final int depth;
+		private final AtomicLongArray counters;
+		private final LongAdder total = new LongAdder();
+
+		// width = e / epsilon and depth = ln(1 / delta) give the guarantee described above
+		public CountMinSketch(double epsilon, double delta) {
+			this((int) Math.ceil(Math.E / checkProbability(epsilon)),
+					(int) Math.ceil(Math.log(1 / checkProbability(delta))));
+		}
+
+		public CountMinSketch(int width, int depth) {
+			if (width < 1 || depth < 1 || (long) width * depth > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("invalid width " + width + " or depth " + depth);
+			this.width = width;
+			this.depth = depth;
+			this.counters = new AtomicLongArray(width * depth);
+		}
+
+		public void add(Object o) {
+			add(o, 1);
+		}
+
+		public void add(Object o, long count) {
+			if (count < 0)
+				throw new IllegalArgumentException("count must not be negative: " + count);
+			long h = hash(o);
+			int h1 = (int) h;
+			int h2 = (int) (h >>> 32);
+			for (int row = 0; row < depth; row++)
+				counters.addAndGet(row * width + index(h1 + row * h2), count);
+			total.add(count);
+		}
+
+		public long estimate(Object o) {
+			long h = hash(o);
+			int h1 = (int) h;
+			int h2 = (int) (h >>> 32);
+			long min = Long.MAX_VALUE;
+			for (int row = 0; row < depth; row++)
+				min = Math.min(min, counters.get(row * width + index(h1 + row * h2)));
+			return min;
+		}
+
+		public CountMinSketch merge(CountMinSketch other) {
+			if (other.width != width || other.depth != depth)
+				throw new IllegalArgumentException("cannot merge sketches of different dimensions");
+			for (int i = 0; i < counters.length(); i++)
+				counters.addAndGet(i, other.counters.get(i));
+			total.add(other.totalCount());
+			return this;
+		}
+
+		public long totalCount() {
+			return total.sum();
+		}
+
+		public long sizeInBytes() {
+			return 8L * width * depth;
+		}
+
+		private int index(int h) {
+			return (h & Integer.MAX_VALUE) % width;
+		}
+
+		private static double checkProbability(double p) {
+			if (!(p > 0 && p < 1))
+				throw new IllegalArgumentException("must be between 0 and 1: " + p);
+			return p;
+		}
+	}
+
+	/*
+	 * Relative error quantile sketch (the idea of DDSketch). A value v > 0 is counted in
+	 * the bucket ceil(log(v) / log(gamma)) with gamma = (1 + a) / (1 - a), every value of
+	 * a bucket is within a relative distance a of the bucket's representative value.
+	 *
+	 * The buckets cover MIN_VALUE to MAX_VALUE, smaller values (including 0) share one
+	 * extra bucket and larger ones are counted in the last bucket, so the memory is fixed:
+	 * about 2800 buckets for a = 0.01.
+	 */
+	public static final class QuantileSketch {
+		public static final double MIN_VALUE = 1e-9;
+		public static final double MAX_VALUE = 1e15;
+
+		private final double relativeAccuracy;
+		private final double logGamma;
+		private final int offset;
+		// index 0 counts values below MIN_VALUE
+		private final AtomicLongArray buckets;
+		private final LongAdder count = new LongAdder();
+
+		public QuantileSketch(double relativeAccuracy) {
+			if (!(relativeAccuracy > 0 && relativeAccuracy < 1))
+				throw new IllegalArgumentException("relativeAccuracy must be between 0 and 1: " + relativeAccuracy);
+			this.relativeAccuracy = relativeAccuracy;
+			this.logGamma = Math.log((1 + relativeAccuracy) / (1 - relativeAccuracy));
+			this.offset = bucket(MIN_VALUE) - 1;
+			this.buckets = new AtomicLongArray(bucket(MAX_VALUE) - offset + 1);
+		}
+
+		public void add(double value) {
+			if (!(value >= 0))
+				throw new IllegalArgumentException("value must not be negative or NaN: " + value);
+			int index;
+			if (value < MIN_VALUE)
+				index = 0;
+			else if (value >= MAX_VALUE)
+				// checked before bucket(), which overflows for infinity
+				index = buckets.length() - 1;
+			else
+				index = Math.min(bucket(value) - offset, buckets.length() - 1);
+			buckets.incrementAndGet(index);
+			count.increment();
+		}
+
+		// q between 0 and 1, NaN if nothing has been added
+		public double quantile(double q) {
+			if (q < 0 || q > 1)
+				throw new IllegalArgumentException("q must be between 0 and 1: " + q);
+			long n = count.sum();
+			if (n == 0)
+				return Double.NaN;
+			// same rank as the element at index (long) (q * (n - 1)) of the sorted values
+			long rank = (long) (q * (n - 1));
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if (seen > rank)
+					return i == 0 ? 0 : value(i + offset);
+			}
+			return value(buckets.length() - 1 + offset);
+		}
+
+		public QuantileSketch merge(QuantileSketch other) {
+			if (other.relativeAccuracy != relativeAccuracy)
+				throw new IllegalArgumentException("cannot merge sketches of different accuracy");
+			for (int i = 0; i < buckets.length(); i++)
+				buckets.addAndGet(i, other.buckets.get(i));
+			count.add(other.count());
+			return this;
+		}
+
+		public long count() {
+			return count.sum();
+		}
+
+		public double relativeAccuracy() {
+			return relativeAccuracy;
+		}
+
+		public long sizeInBytes() {
+			return 8L * buckets.length();
+		}
+
+		private int bucket(double value) {
+			return (int) Math.ceil(Math.log(value) / logGamma);
+		}
+
+		// representative value of a bucket, the relative error to any of its values is at
+		// most relativeAccuracy
+		private double value(int bucket) {
+			return 2 * Math.exp(bucket * logGamma) / (1 + Math.exp(logGamma));
+		}
+	}
+}
@@ -0,0 +1,361 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/*
+ * Collectors returning the first k elements of a stream in a given order, the same result
+ * as sorted(comparator).limit(k) but without sorting (and holding) the whole stream.
+ *
+ * Every accumulation container is a bounded heap of at most k elements whose root is the
+ * worst element kept so far, a new element either replaces the root or is dropped. In a
+ * parallel stream every worker fills its own heap and the heaps are merged in the
+ * combiner, so the cost is O(n log k) time and O(k) memory per worker instead of
+ * O(n log n) time and O(n) memory.
+ *
+ * topK() may return any of the elements that compare equal at the boundary. stableTopK()
+ * remembers the encounter position of every element and breaks ties with it, so the
+ * result is exactly the one of sorted(comparator).limit(k) on an ordered stream.
+ *
+ * For IntStream and LongStream smallest()/largest() work on primitive heaps without
+ * boxing and return sorted arrays.
+ */
+public final class TopKCollectors {
+
+	private TopKCollectors() {
+	}
+
+	// The k first elements in comparator order, ties at the boundary are broken arbitrarily
+	public static <T> Collector<T, ?, List<T>> topK(int k, Comparator<? super T> comparator) {
+		return collector(k, comparator, false);
+	}
+
+	// The k first elements in comparator order, equal elements keep their encounter order
+	public static <T> Collector<T, ?, List<T>> stableTopK(int k, Comparator<? super T> comparator) {
+		return collector(k, comparator, true);
+	}
+
+	public static <T extends Comparable<? super T>> Collector<T, ?, List<T>> smallest(int k) {
+		return topK(k, Comparator.naturalOrder());
+	}
+
+	public static <T extends Comparable<? super T>> Collector<T, ?, List<T>> largest(int k) {
+		return topK(k, Comparator.reverseOrder());
+	}
+
+	public static int[] smallest(IntStream stream, int k) {
+		return stream.collect(() -> new IntHeap(k, false), IntHeap::add, IntHeap::addAll).toSortedArray();
+	}
+
+	public static int[] largest(IntStream stream, int k) {
+		return stream.collect(() -> new IntHeap(k, true), IntHeap::add, IntHeap::addAll).toSortedArray();
+	}
+
+	public static long[] smallest(LongStream stream, int k) {
+		return stream.collect(() -> new LongHeap(k, false), LongHeap::add, LongHeap::addAll).toSortedArray();
+	}
+
+	public static long[] largest(LongStream stream, int k) {
+		return stream.collect(() -> new LongHeap(k, true), LongHeap::add, LongHeap::addAll).toSortedArray();
+	}
+
+	private static <T> Collector<T, ?, List<T>> collector(int k, Comparator<? super T> comparator, boolean stable) {
+		checkK(k);
+		Objects.requireNonNull(comparator);
+		Supplier<Heap<T>> supplier = () -> new Heap<>(k, comparator, stable);
+		// the stable variant relies on the combiner getting the heaps in encounter order
+		if (stable)
+			return Collector.of(supplier, Heap::add, Heap::merge, Heap::toSortedList);
+		return Collector.of(supplier, Heap::add, Heap::merge, Heap::toSortedList,
+				Collector.Characteristics.UNORDERED);
+	}
+
+	private static void checkK(int k) {
+		if (k < 0)
+			throw new IllegalArgumentException("k must not be negative: " + k);
+	}
+
+	/*
+	 * Bounded heap ordered so that the root is the element that would be dropped first.
+	 * For the stable variant seqs holds the encounter position of every element, counted
+	 * from the start of the part of the stream this heap has seen.
+	 */
+	private static final class Heap<T> {
+		private final int k;
+		private final Comparator<? super T> comparator;
+		private Object[] items;
+		private long[] seqs;
+		private int size;
+		private long seen;
+
+		Heap(int k, Comparator<? super T> comparator, boolean stable) {
+			this.k = k;
+			this.comparator = comparator;
+			// grows up to k, so that topK(1000000) on a short stream stays small
+			this.items = new Object[Math.min(k, 16)];
+			this.seqs = stable ? new long[items.length] : null;
+		}
+
+		void add(T t) {
+			offer(t, seen++);
+		}
+
+		private void offer(T t, long seq) {
+			if (k == 0)
+				return;
+			if (size < k) {
+				if (size == items.length)
+					grow();
+				items[size] = t;
+				if (seqs != null)
+					seqs[size] = seq;
+				siftUp(size++);
+			} else if (worse(0, t, seq)) {
+				items[0] = t;
+				if (seqs != null)
+					seqs[0] = seq;
+				siftDown(0);
+			}
+		}
+
+		// right holds the elements that follow the ones of this heap in encounter order
+		@SuppressWarnings("unchecked")
+		Heap<T> merge(Heap<T> right) {
+			for (int i = 0; i < right.size; i++)
+				offer((T) right.items[i], right.seqs == null ? 0 : seen + right.seqs[i]);
+			seen += right.seen;
+			return this;
+		}
+
+		@SuppressWarnings("unchecked")
+		List<T> toSortedList() {
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++)
+				order[i] = i;
+			Arrays.sort(order, (a, b) -> compare(a, b));
+			List<T> result = new ArrayList<>(size);
+			for (Integer i : order)
+				result.add((T) items[i]);
+			return result;
+		}
+
+		private void grow() {
+			int capacity = (int) Math.min(k, items.length * 2L);
+			items = Arrays.copyOf(items, capacity);
+			if (seqs != null)
+				seqs = Arrays.copyOf(seqs, capacity);
+		}
+
+		// true if the kept element at index i comes after (t, seq) in the requested order
+		@SuppressWarnings("unchecked")
+		private boolean worse(int i, T t, long seq) {
+			int c = comparator.compare((T) items[i], t);
+			if (c == 0 && seqs != null)
+				return seqs[i] > seq;
+			return c > 0;
+		}
+
+		@SuppressWarnings("unchecked")
+		private int compare(int i, int j) {
+			int c = comparator.compare((T) items[i], (T) items[j]);
+			if (c == 0 && seqs != null)
+				c = Long.compare(seqs[i], seqs[j]);
+			return c;
+		}
+
+		private void siftUp(int i) {
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (compare(parent, i) >= 0)
+					break;
+				swap(parent, i);
+				i = parent;
+			}
+		}
+
+		private void siftDown(int i) {
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && compare(child + 1, child) > 0)
+					child++;
+				if (compare(i, child) >= 0)
+					break;
+				swap(i, child);
+				i = child;
+			}
+		}
+
+		private void swap(int i, int j) {
+			Object item = items[i];
+			items[i] = items[j];
+			items[j] = item;
+			if (seqs != null) {
+				long seq = seqs[i];
+				seqs[i] = seqs[j];
+				seqs[j] = seq;
+			}
+		}
+	}
+
+	/*
+	 * Primitive heaps keep the worst kept value at the root: the maximum when collecting
+	 * the smallest values and the minimum when collecting the largest ones.
+	 */
+	private static final class IntHeap {
+		private final int k;
+		private final boolean largest;
+		private int[] values;
+		private int size;
+
+		IntHeap(int k, boolean largest) {
+			checkK(k);
+			this.k = k;
+			this.largest = largest;
+			this.values = new int[Math.min(k, 16)];
+		}
+
+		void add(int v) {
+			if (size < k) {
+				if (size == values.length)
+					values = Arrays.copyOf(values, (int) Math.min(k, values.length * 2L));
+				values[size] = v;
+				siftUp(size++);
+			} else if (k > 0 && before(v, values[0])) {
+				values[0] = v;
+				siftDown(0);
+			}
+		}
+
+		void addAll(IntHeap other) {
+			for (int i = 0; i < other.size; i++)
+				add(other.values[i]);
+		}
+
+		int[] toSortedArray() {
+			int[] result = Arrays.copyOf(values, size);
+			Arrays.sort(result);
+			if (largest)
+				for (int i = 0, j = size - 1; i < j; i++, j--) {
+					int v = result[i];
+					result[i] = result[j];
+					result[j] = v;
+				}
+			return result;
+		}
+
+		// true if a belongs before b in the result
+		private boolean before(int a, int b) {
+			return largest ? a > b : a < b;
+		}
+
+		private void siftUp(int i) {
+			int v = values[i];
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!before(values[parent], v))
+					break;
+				values[i] = values[parent];
+				i = parent;
+			}
+			values[i] = v;
+		}
+
+		private void siftDown(int i) {
+			int v = values[i];
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && before(values[child], values[child + 1]))
+					child++;
+				if (!before(v, values[child]))
+					break;
+				values[i] = values[child];
+				i = child;
+			}
+			values[i] = v;
+		}
+	}
+
+	private static final class LongHeap {
+		private final int k;
+		private final boolean largest;
+		private long[] values;
+		private int size;
+
+		LongHeap(int k, boolean largest) {
+			checkK(k);
+			this.k = k;
+			this.largest = largest;
+			this.values = new long[Math.min(k, 16)];
+		}
+
+		void add(long v) {
+			if (size < k) {
+				if (size == values.length)
+					values = Arrays.copyOf(values, (int) Math.min(k, values.length * 2L));
+				values[size] = v;
+				siftUp(size++);
+			} else if (k > 0 && before(v, values[0])) {
+				values[0] = v;
+				siftDown(0);
+			}
+		}
+
+		void addAll(LongHeap other) {
+			for (int i = 0; i < other.size; i++)
+				add(other.values[i]);
+		}
+
+		long[] toSortedArray() {
+			long[] result = Arrays.copyOf(values, size);
+			Arrays.sort(result);
+			if (largest)
+				for (int i = 0, j = size - 1; i < j; i++, j--) {
+					long v = result[i];
+					result[i] = result[j];
+					result[j] = v;
+				}
+			return result;
+		}
+
+		private boolean before(long a, long b) {
+			return largest ? a > b : a < b;
+		}
+
+		private void siftUp(int i) {
+			long v = values[i];
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!before(values[parent], v))
+					break;
+				values[i] = values[parent];
+				i = parent;
+			}
+			values[i] = v;
+		}
+
+		private void siftDown(int i) {
+			long v = values[i];
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && before(values[child], values[child + 1]))
+					child++;
+				if (!before(v, values[child]))
+					break;
+				values[i] = values[child];
+				i = child;
+			}
+			values[i] = v;
+		}
+	}
+}